@@ -0,0 +1,632 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * This class is the on-disk archive tier for events that have already taken place.
+ * Events are appended to a single segment file as compact binary records, and only the
+ * eventID, file offset and date and time of each event are kept on the heap, in flat
+ * arrays rather than maps. Reads of
+ * archived events go through a bounded LRU cache. Removing an event leaves its record
+ * behind, so once most records in the segment are dead it is rewritten with only the live ones.
+ * The segment file is only open while records are being written or read, so an archive
+ * holds no file handles between operations.
+ */
+public class EventArchive implements AutoCloseable {
+    private static final byte RECORD = 1;
+    private static final byte REMOVAL = 0;
+    private static final int COMPACTION_MIN_DEAD_RECORDS = 64;
+
+    private final Path file;
+    private DataOutputStream appender; // open from the first write after a flush until the next flush
+    private final ByteArrayOutputStream recordBuffer;
+    private Index index;
+    private final Map<String, Event> cache;
+    private long end;
+    private int deadRecords; // removed records and the removal records that replaced them
+
+    /**
+     * Opens the archive segment at the given path, creating it if it does not exist
+     * @param file the path of the segment file
+     * @param cacheSize the maximum number of archived events to keep cached on the heap
+     * @throws IOException if the segment cannot be opened or read
+     */
+    public EventArchive(Path file, int cacheSize) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        this.file = file;
+        this.recordBuffer = new ByteArrayOutputStream();
+        this.index = new Index();
+        this.cache = new LinkedHashMap<String, Event>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Event> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        if (!Files.exists(file)) {
+            Files.createFile(file);
+        }
+        this.end = rebuildIndex();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // drop a record that was only partly written, e.g. when the program was stopped mid-write
+            channel.truncate(end);
+        }
+    }
+
+    /**
+     * Moves an event into the archive
+     * @param event the event to archive
+     * @return whether or not the event was archived, false if its ID is already archived
+     */
+    public boolean add(Event event) {
+        if (index.find(event.id()) >= 0) {
+            return false;
+        }
+        long epochSecond = epochSecond(event.getDateTime());
+        long offset = write(RECORD, event.id(), epochSecond, event);
+        index.put(event.id(), offset, epochSecond);
+        return true;
+    }
+
+    /**
+     * removes an archived event with the specified eventID
+     * @param eventID the ID number of the event, as a String
+     * @return whether or not the event was successfully removed
+     */
+    public boolean remove(String eventID) {
+        int slot = index.remove(eventID);
+        if (slot < 0) {
+            return false;
+        }
+        cache.remove(eventID);
+        write(REMOVAL, eventID, index.epochSecond(slot), null);
+        deadRecords += 2;
+        return true;
+    }
+
+    /**
+     * @param eventID the ID number of the event, as a String
+     * @return whether or not an event with this ID is archived
+     */
+    public boolean contains(String eventID) {
+        return index.find(eventID) >= 0;
+    }
+
+    /**
+     * retrieve an archived event by its ID, reading it from disk on a cache miss
+     * @param eventID the ID number of the event, as a String
+     * @return the archived event, or null if it is not archived
+     */
+    public Event get(String eventID) {
+        Event event = cache.get(eventID);
+        if (event == null) {
+            int slot = index.find(eventID);
+            if (slot < 0) {
+                return null; // event not archived
+            }
+            try (RandomAccessFile segment = openForReading()) {
+                event = read(segment, index.offset(slot));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            cache.put(eventID, event);
+        }
+        return event;
+    }
+
+    /**
+     * collects the archived events within a date range, inclusive of both ends
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the archived events between start and end
+     */
+    public List<Event> between(LocalDateTime start, LocalDateTime end) {
+        List<Event> events = new ArrayList<>();
+        if (start.isAfter(end)) {
+            return events;
+        }
+        int[] order = index.order();
+        long last = epochSecond(end);
+        try (RandomAccessFile segment = openForReading()) {
+            for (int i = index.firstInOrder(epochSecond(start)); i < order.length && index.epochSecond(order[i]) <= last; i++) {
+                String eventID = index.id(order[i]);
+                if (eventID != null) {
+                    Event event = cache.get(eventID);
+                    if (event == null) {
+                        event = read(segment, index.offset(order[i]));
+                        cache.put(eventID, event);
+                    }
+                    events.add(event);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return events;
+    }
+
+    /**
+     * collects every archived event, ordered by date and time; events are read without
+     * going through the cache so a full listing does not evict the cached events
+     * @return the archived events, earliest first
+     */
+    public List<Event> inDateOrder() {
+        List<Event> events = new ArrayList<>(index.size());
+        try (RandomAccessFile segment = openForReading()) {
+            for (int slot : index.order()) {
+                String eventID = index.id(slot);
+                if (eventID != null) {
+                    Event cached = cache.get(eventID);
+                    events.add(cached != null ? cached : read(segment, index.offset(slot)));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return events;
+    }
+
+    /**
+     * Streams every archived event from disk in the order it was archived, without
+     * going through the cache
+     * @param action the action to perform on each archived event
+     */
+    public void forEach(Consumer<Event> action) {
+        try {
+            flushAppender();
+            scan((record, offset) -> {
+                Event event = decode(record);
+                // skip removals and records that have since been removed
+                if (index.holds(event.id(), offset)) {
+                    action.accept(event);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the date and time of the latest archived event, or null if the archive is empty
+     */
+    public LocalDateTime latest() {
+        int[] order = index.order();
+        for (int i = order.length - 1; i >= 0; i--) {
+            if (index.id(order[i]) != null) {
+                return LocalDateTime.ofEpochSecond(index.epochSecond(order[i]), 0, ZoneOffset.UTC);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of archived events
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Writes any buffered records through to the segment file and closes it, compacting
+     * the segment first if more of its records are dead than live
+     */
+    public void flush() {
+        try {
+            if (deadRecords >= COMPACTION_MIN_DEAD_RECORDS && deadRecords > index.size()) {
+                compact();
+            }
+            close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Rewrites the segment with only its live records. The new segment is written to a
+     * separate file and then moved over the old one, so a failure leaves the old segment and
+     * its index in place, and the archive carries on appending to it
+     */
+    private void compact() throws IOException {
+        close(); // nothing may hold the segment open while it is replaced
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        Index compactedIndex = new Index();
+        long compactedEnd;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(compacted), 1 << 16))) {
+            long[] position = {0};
+            scan((record, offset) -> {
+                Event event = decode(record);
+                if (index.holds(event.id(), offset)) {
+                    try {
+                        out.writeInt(record.length);
+                        out.write(record);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    compactedIndex.put(event.id(), position[0], epochSecond(event.getDateTime()));
+                    position[0] += Integer.BYTES + record.length;
+                }
+            });
+            compactedEnd = position[0];
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(compacted);
+            throw e.getCause();
+        }
+
+        try {
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(compacted);
+            throw e;
+        }
+        index = compactedIndex;
+        end = compactedEnd;
+        deadRecords = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (appender != null) {
+            appender.close();
+            appender = null;
+        }
+    }
+
+    private void flushAppender() throws IOException {
+        if (appender != null) {
+            appender.flush();
+        }
+    }
+
+    /**
+     * @return the segment opened for reading, with any buffered records written through first
+     */
+    private RandomAccessFile openForReading() throws IOException {
+        flushAppender();
+        return new RandomAccessFile(file.toFile(), "r");
+    }
+
+    /**
+     * Replays the segment file to rebuild the in-memory index of archived events
+     * @return the offset just past the last complete record
+     */
+    private long rebuildIndex() throws IOException {
+        return scan((record, offset) -> {
+            Event event = decode(record);
+            if (record[0] == RECORD) {
+                index.put(event.id(), offset, epochSecond(event.getDateTime()));
+            } else {
+                index.remove(event.id());
+                deadRecords += 2;
+            }
+        });
+    }
+
+    /**
+     * Reads the segment file sequentially, passing each record and its offset to the visitor.
+     * An incomplete record at the end of the segment is ignored
+     * @return the offset just past the last complete record
+     */
+    private long scan(ObjLongConsumer<byte[]> visitor) throws IOException {
+        long size = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            long offset = 0;
+            while (offset + Integer.BYTES <= size) {
+                int length = in.readInt();
+                if (length <= 0 || offset + Integer.BYTES + length > size) {
+                    break; // the record was not written out in full
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                visitor.accept(record, offset);
+                offset += Integer.BYTES + record.length;
+            }
+            return offset;
+        }
+    }
+
+    private static long epochSecond(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * Appends a record to the end of the segment as a length-prefixed block, opening the
+     * segment if it is not open yet. Appends are buffered until the next flush or read of the segment
+     * @param event the event to store, or null for a removal record
+     * @return the offset the record was written at
+     */
+    private long write(byte kind, String eventID, long epochSecond, Event event) {
+        try {
+            recordBuffer.reset();
+            DataOutputStream out = new DataOutputStream(recordBuffer);
+            out.writeByte(kind);
+            writeString(out, eventID);
+            out.writeLong(epochSecond);
+            if (kind == RECORD) {
+                writeString(out, event.getTitle());
+                writeString(out, event.getOrganization());
+                writeString(out, event.getVenue());
+                writeString(out, event.getDescription());
+                out.writeBoolean(event.isHighPriority());
+            }
+
+            if (appender == null) {
+                appender = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(file, StandardOpenOption.APPEND), 1 << 16));
+            }
+            long offset = end;
+            appender.writeInt(recordBuffer.size());
+            recordBuffer.writeTo(appender);
+            end += Integer.BYTES + recordBuffer.size();
+            return offset;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Event read(RandomAccessFile segment, long offset) throws IOException {
+        segment.seek(offset);
+        byte[] record = new byte[segment.readInt()];
+        segment.readFully(record);
+        return decode(record);
+    }
+
+    /**
+     * @return the event stored in the record; a removal record only carries the eventID
+     *         and date and time of the event it removed
+     */
+    private static Event decode(byte[] record) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            byte kind = in.readByte();
+            String eventID = readString(in);
+            LocalDateTime dateTime = LocalDateTime.ofEpochSecond(in.readLong(), 0, ZoneOffset.UTC);
+            if (kind == REMOVAL) {
+                return new Event(dateTime, "", "", eventID);
+            }
+            Event event = new Event(dateTime, readString(in), readString(in), eventID);
+            event.setVenue(readString(in));
+            event.setDescription(readString(in));
+            event.setPriority(in.readBoolean());
+            return event;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * writes a string as its length in bytes followed by its UTF-8 bytes, which unlike
+     * writeUTF has no 64 KB limit
+     */
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * reads a string written by writeString from a record held in memory
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Corrupt archive record");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The eventID, offset and date and time of every live record, held in flat arrays so that
+     * an archived event costs its eventID and a few primitives rather than several map entries.
+     * Slots are only ever appended; removing an event empties its slot, and emptied slots are
+     * dropped when a compaction builds a new index
+     */
+    private static final class Index {
+        private static final int FREE = 0;
+        private static final int REMOVED = -1;
+
+        private String[] ids = new String[16];
+        private long[] offsets = new long[16];
+        private long[] epochSeconds = new long[16];
+        // open addressing from eventID to slot + 1, with linear probing
+        private int[] table = new int[32];
+        private int slots; // slots in use, including emptied ones
+        private int occupied; // table entries that are not free, including removed ones
+        private int size;
+        private int[] order; // the slots sorted by date and time, rebuilt after an event is added
+
+        int size() {
+            return size;
+        }
+
+        String id(int slot) {
+            return ids[slot]; // null once the event is removed
+        }
+
+        long offset(int slot) {
+            return offsets[slot];
+        }
+
+        long epochSecond(int slot) {
+            return epochSeconds[slot];
+        }
+
+        /**
+         * @return the slot of the event with this ID, or -1 if it is not in the index
+         */
+        int find(String eventID) {
+            int entry = entryOf(eventID);
+            return table[entry] > FREE ? table[entry] - 1 : -1;
+        }
+
+        /**
+         * @return whether or not the live record of the event with this ID is at this offset
+         */
+        boolean holds(String eventID, long offset) {
+            int slot = find(eventID);
+            return slot >= 0 && offsets[slot] == offset;
+        }
+
+        void put(String eventID, long offset, long epochSecond) {
+            int slot = find(eventID);
+            if (slot < 0) {
+                if ((occupied + 1) * 2 > table.length) {
+                    rehash();
+                }
+                if (slots == ids.length) {
+                    int capacity = slots * 2;
+                    ids = Arrays.copyOf(ids, capacity);
+                    offsets = Arrays.copyOf(offsets, capacity);
+                    epochSeconds = Arrays.copyOf(epochSeconds, capacity);
+                }
+                slot = slots++;
+                ids[slot] = eventID;
+                int entry = entryOf(eventID);
+                if (table[entry] == FREE) {
+                    occupied++;
+                }
+                table[entry] = slot + 1;
+                size++;
+            }
+            offsets[slot] = offset;
+            epochSeconds[slot] = epochSecond;
+            order = null;
+        }
+
+        /**
+         * @return the emptied slot of the removed event, or -1 if it is not in the index
+         */
+        int remove(String eventID) {
+            int entry = entryOf(eventID);
+            if (table[entry] <= FREE) {
+                return -1;
+            }
+            int slot = table[entry] - 1;
+            table[entry] = REMOVED;
+            ids[slot] = null;
+            size--;
+            return slot;
+        }
+
+        /**
+         * @return every slot, earliest date and time first; emptied slots are left in place
+         */
+        int[] order() {
+            if (order == null) {
+                int[] sorted = new int[slots];
+                for (int slot = 0; slot < slots; slot++) {
+                    sorted[slot] = slot;
+                }
+                order = sortByDateTime(sorted);
+            }
+            return order;
+        }
+
+        /**
+         * @return the position in order() of the first slot at or after the given epoch second
+         */
+        int firstInOrder(long epochSecond) {
+            int[] sorted = order();
+            int low = 0;
+            int high = sorted.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (epochSeconds[sorted[middle]] < epochSecond) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return the table entry holding this eventID, or the entry where it would be inserted
+         */
+        private int entryOf(String eventID) {
+            int mask = table.length - 1;
+            int hash = eventID.hashCode() * 0x9E3779B9; // spread IDs that differ only in their last characters
+            int insertAt = -1;
+            for (int entry = (hash ^ (hash >>> 16)) & mask; ; entry = (entry + 1) & mask) {
+                int value = table[entry];
+                if (value == FREE) {
+                    return insertAt >= 0 ? insertAt : entry;
+                }
+                if (value == REMOVED) {
+                    if (insertAt < 0) {
+                        insertAt = entry;
+                    }
+                } else if (ids[value - 1].equals(eventID)) {
+                    return entry;
+                }
+            }
+        }
+
+        /**
+         * Rebuilds the table without its removed entries, doubling it if it is more than a quarter full
+         */
+        private void rehash() {
+            int capacity = table.length;
+            while ((size + 1) * 4 > capacity) {
+                capacity *= 2;
+            }
+            table = new int[capacity];
+            occupied = 0;
+            for (int slot = 0; slot < slots; slot++) {
+                if (ids[slot] != null) {
+                    table[entryOf(ids[slot])] = slot + 1;
+                    occupied++;
+                }
+            }
+        }
+
+        /**
+         * bottom-up merge sort of slots by their date and time
+         */
+        private int[] sortByDateTime(int[] sorted) {
+            int[] buffer = new int[sorted.length];
+            for (int width = 1; width < sorted.length; width *= 2) {
+                for (int from = 0; from < sorted.length; from += 2 * width) {
+                    int middle = Math.min(from + width, sorted.length);
+                    int to = Math.min(from + 2 * width, sorted.length);
+                    int left = from;
+                    int right = middle;
+                    for (int i = from; i < to; i++) {
+                        if (left < middle && (right >= to || epochSeconds[sorted[left]] <= epochSeconds[sorted[right]])) {
+                            buffer[i] = sorted[left++];
+                        } else {
+                            buffer[i] = sorted[right++];
+                        }
+                    }
+                }
+                int[] swap = sorted;
+                sorted = buffer;
+                buffer = swap;
+            }
+            return sorted;
+        }
+    }
+}
@@ -1,29 +1,181 @@
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * This class is a collection class for managing a set of events. 
  * It has methods for adding an event, removing an event, searching for an event,
  * and viewing events based on various attributes.
+ * Optionally, events older than a horizon are moved out of the in-memory set into an
+ * EventArchive, and only queries that reach into the past read from the archive. The
+ * in-memory events are then also saved to a journal, so both tiers survive a restart.
  */
-public class EventCollection {
-    private Set<Event> events;
+public class EventCollection implements EventStore {
+    private static final Duration SWEEP_INTERVAL = Duration.ofMinutes(1);
+
+    private Map<String, Event> events; // keyed by eventID
+    private final EventArchive archive;
+    private final EventArchive journal;
+    private final Duration horizon;
+    private LocalDateTime nextSweep;
 
     public EventCollection() {
-        this.events = new HashSet<>();
+        this.events = new HashMap<>();
+        this.archive = null;
+        this.journal = null;
+        this.horizon = null;
+        this.nextSweep = LocalDateTime.MIN;
+    }
+
+    /**
+     * Constructs a collection that archives events once they are older than the horizon,
+     * reloading the in-memory events that were saved to the journal by a previous run
+     * @param archive the archive that past events are moved into
+     * @param journal the segment the in-memory events are saved to
+     * @param horizon how far in the past an event must be before it is archived
+     */
+    public EventCollection(EventArchive archive, EventArchive journal, Duration horizon) {
+        this.events = new HashMap<>();
+        this.archive = archive;
+        this.journal = journal;
+        this.horizon = horizon;
+        this.nextSweep = LocalDateTime.MIN;
+
+        journal.forEach(event -> {
+            // an event in both tiers was being moved when the program stopped; the journal
+            // copy is written first on a move either way, so it is the one to keep
+            archive.remove(event.id());
+            events.put(event.id(), event);
+        });
+        archive.flush();
     }
 
     /**
-     * Adding an event to the collection
+     * Adding an event to the collection, straight into the archive if it is already past the horizon
      * @param event
      * @return whether or not adding event was successful
      */
+    @Override
     public boolean add(Event event) {
-        return events.add(event);
+        boolean added = addEvent(event);
+        flush();
+        return added;
+    }
+
+    private boolean addEvent(Event event) {
+        if (archive == null) {
+            return events.putIfAbsent(event.id(), event) == null;
+        }
+        if (archive.contains(event.id())) {
+            return false;
+        }
+        if (event.getDateTime().isBefore(cutoff())) {
+            return !events.containsKey(event.id()) && archive.add(event);
+        }
+        return events.putIfAbsent(event.id(), event) == null && journal.add(event);
+    }
+
+    /**
+     * Writes any buffered records of both tiers through to their segment files
+     */
+    private void flush() {
+        if (archive != null) {
+            archive.flush();
+            journal.flush();
+        }
+    }
+
+    /**
+     * Adding a batch of events to the collection
+     * @param batch the events to add
+     * @return the number of events that were added
+     */
+    @Override
+    public int addAll(Collection<Event> batch) {
+        int added = 0;
+        for (Event event : batch) {
+            if (addEvent(event)) {
+                added++;
+            }
+        }
+        flush(); // once per batch rather than once per event
+        return added;
+    }
+
+    /**
+     * Moves every in-memory event that is older than the horizon into the archive
+     * @return the number of events archived
+     */
+    @Override
+    public int archivePastEvents() {
+        if (archive == null) {
+            return 0;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime cutoff = now.minus(horizon);
+        nextSweep = now.plus(SWEEP_INTERVAL);
+
+        List<Event> archived = new ArrayList<>();
+        Iterator<Event> iterator = events.values().iterator();
+        while (iterator.hasNext()) {
+            Event event = iterator.next();
+            if (event.getDateTime().isBefore(cutoff)) {
+                archive.add(event);
+                iterator.remove();
+                archived.add(event);
+            }
+        }
+        // the archived copies are written out before the journal drops its own
+        archive.flush();
+        for (Event event : archived) {
+            journal.remove(event.id());
+        }
+        journal.flush();
+        return archived.size();
+    }
+
+    /**
+     * Archives past events if the last sweep is more than a sweep interval old, so
+     * queries keep scanning only the working set without sweeping on every call
+     */
+    private void maintainTiers() {
+        if (archive != null && !LocalDateTime.now().isBefore(nextSweep)) {
+            archivePastEvents();
+        }
+    }
+
+    /**
+     * @return the point in time before which events belong in the archive
+     */
+    private LocalDateTime cutoff() {
+        return LocalDateTime.now().minus(horizon);
+    }
+
+    /**
+     * Compares against the latest archived event rather than the current horizon, since
+     * events archived under a shorter horizon can be later than the cutoff
+     * @return whether or not a query starting at the given time has to read the archive
+     */
+    private boolean reachesArchive(LocalDateTime start) {
+        if (archive == null) {
+            return false;
+        }
+        LocalDateTime latest = archive.latest();
+        return latest != null && !start.isAfter(latest);
     }
 
     /**
@@ -32,8 +184,20 @@ public class EventCollection {
      * @param eventID the ID number of the event, as a String
      * @return whether or not the event was successfully removed
      */
+    @Override
     public boolean remove(String eventID) {
-        return events.removeIf(event -> event.id().equals(eventID));
+        if (events.remove(eventID) != null) {
+            if (journal != null) {
+                journal.remove(eventID);
+                journal.flush();
+            }
+            return true;
+        }
+        if (archive != null && archive.remove(eventID)) {
+            archive.flush();
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -41,11 +205,14 @@ public class EventCollection {
      * @param eventID the ID number of the event, as a String
      * @return the event with the specified eventID
     */ 
+    @Override
     public Event getEventByID(String eventID) {
-        for (Event event : events) {
-            if (event.id().equals(eventID)) {
-                return event;
-            }
+        Event event = events.get(eventID);
+        if (event != null) {
+            return event;
+        }
+        if (archive != null) {
+            return archive.get(eventID);
         }
         return null; // event not found
     }
@@ -58,68 +225,190 @@ public class EventCollection {
      * 
      * @return whether or not the modification was successful
      */
+    @Override
     public boolean modifyEvent(String eventID, String attribute, Object newValue) {
-        for (Event event : events) {
-            if (event.id().equals(eventID)) {
-                switch (attribute.toLowerCase()) {
-                    case "title":
-                        event.setTitle((String) newValue);
-                        break;
-                    case "datetime":
-                        event.setDateTime((LocalDateTime) newValue);
-                        break;
-                    case "venue":
-                        event.setVenue((String) newValue);
-                        break;
-                    case "description":
-                        event.setDescription((String) newValue);
-                        break;
-                    case "priority":
-                        event.setPriority((Boolean) newValue);
-                        break;
-                    default:
-                        return false; // invalid attribute
-                }
-                return true; // modification successful
+        Event event = events.get(eventID);
+        if (event != null) {
+            if (!modify(event, attribute, newValue)) {
+                return false; // invalid attribute
             }
+            if (journal != null) {
+                journal.remove(eventID);
+                journal.add(event);
+                journal.flush();
+            }
+            return true;
+        }
+        if (archive != null && archive.contains(eventID)) {
+            // change a copy, so the archive is only rewritten when the event really changes
+            Event archived = archive.get(eventID);
+            Event modified = copyOf(archived);
+            if (!modify(modified, attribute, newValue)) {
+                return false; // invalid attribute
+            }
+            if (sameDetails(archived, modified)) {
+                return true; // nothing to write
+            }
+            if (!modified.getDateTime().isBefore(cutoff())) {
+                // moved out of the past; the journal copy is saved before the archived one is dropped
+                events.put(eventID, modified);
+                journal.add(modified);
+                journal.flush();
+                archive.remove(eventID);
+            } else {
+                archive.remove(eventID);
+                archive.add(modified);
+            }
+            archive.flush();
+            return true;
         }
         return false; // event not found
     }
 
     /**
-     * creates a list and returns the sorted list
-     * @param attribute the attribute of the event to sort by, e.g. 'title'
-     * @return a list of the events, sorted by the specified attribute
-    */ 
-    public List<Event> sort(String attribute) {
-        List<Event> sortedEvents = new ArrayList<>(events);
-        Comparator<Event> comparator;
-
+     * sets an attribute of an event
+     * @return whether or not the attribute is one that can be modified
+     */
+    private static boolean modify(Event event, String attribute, Object newValue) {
         switch (attribute.toLowerCase()) {
             case "title":
-                comparator = Comparator.comparing(Event::getTitle);
+                event.setTitle((String) newValue);
                 break;
             case "datetime":
-                comparator = Comparator.comparing(Event::getDateTime);
+                event.setDateTime((LocalDateTime) newValue);
                 break;
             case "venue":
-                comparator = Comparator.comparing(Event::getVenue);
+                event.setVenue((String) newValue);
                 break;
             case "description":
-                comparator = Comparator.comparing(Event::getDescription);
+                event.setDescription((String) newValue);
                 break;
             case "priority":
-                comparator = Comparator.comparing(Event::isHighPriority);
+                event.setPriority((Boolean) newValue);
                 break;
+            default:
+                return false; // invalid attribute
+        }
+        return true; // modification successful
+    }
+
+    private static Event copyOf(Event event) {
+        Event copy = new Event(event.getDateTime(), event.getTitle(), event.getOrganization(), event.id());
+        copy.setVenue(event.getVenue());
+        copy.setDescription(event.getDescription());
+        copy.setPriority(event.isHighPriority());
+        return copy;
+    }
+
+    /**
+     * @return whether or not every modifiable attribute of the two events is equal
+     */
+    private static boolean sameDetails(Event a, Event b) {
+        return Objects.equals(a.getTitle(), b.getTitle())
+                && Objects.equals(a.getDateTime(), b.getDateTime())
+                && Objects.equals(a.getVenue(), b.getVenue())
+                && Objects.equals(a.getDescription(), b.getDescription())
+                && a.isHighPriority() == b.isHighPriority();
+    }
+
+    /**
+     * creates a list and returns the sorted list, merging in the archived events
+     * @param attribute the attribute of the event to sort by, e.g. 'title'
+     * @return a list of the events, sorted by the specified attribute
+    */ 
+    @Override
+    public List<Event> sort(String attribute) {
+        maintainTiers();
+        Comparator<Event> comparator = comparatorFor(attribute);
+        List<Event> sortedEvents = new ArrayList<>(events.values());
+        sortedEvents.sort(comparator);
+        if (archive == null || archive.size() == 0) {
+            return sortedEvents;
+        }
+
+        List<Event> archived;
+        if (attribute.equalsIgnoreCase("datetime")) {
+            archived = archive.inDateOrder(); // already in order
+        } else {
+            archived = new ArrayList<>(archive.size());
+            archive.forEach(archived::add);
+            archived.sort(comparator);
+        }
+        return merge(List.of(sortedEvents, archived), comparator);
+    }
+
+    /**
+     * returns the comparator used to order events by the given attribute
+     * @param attribute the attribute of the event to sort by, e.g. 'title'
+     * @return a comparator over the specified attribute
+     */
+    static Comparator<Event> comparatorFor(String attribute) {
+        switch (attribute.toLowerCase()) {
+            case "title":
+                return Comparator.comparing(Event::getTitle);
+            case "datetime":
+                return Comparator.comparing(Event::getDateTime);
+            case "venue":
+                return Comparator.comparing(Event::getVenue);
+            case "description":
+                return Comparator.comparing(Event::getDescription);
+            case "priority":
+                return Comparator.comparing(Event::isHighPriority);
             case "organization":
-                comparator = Comparator.comparing(Event::getOrganization);
-                break;
+                return Comparator.comparing(Event::getOrganization);
             default:
                 throw new IllegalArgumentException("Invalid attribute: " + attribute);
         }
+    }
 
-        sortedEvents.sort(comparator);
-        return sortedEvents;
+    /**
+     * k-way merges lists that are each already sorted by the comparator
+     * @param sortedLists the sorted lists to merge
+     * @param comparator the ordering shared by every list
+     * @return a single list containing every event, in sorted order
+     */
+    static List<Event> merge(List<List<Event>> sortedLists, Comparator<Event> comparator) {
+        int total = 0;
+        // each entry in the queue is the cursor of one list, ordered by the event it points at
+        PriorityQueue<Cursor> heads = new PriorityQueue<>((a, b) -> comparator.compare(a.head, b.head));
+        for (List<Event> list : sortedLists) {
+            total += list.size();
+            Iterator<Event> iterator = list.iterator();
+            if (iterator.hasNext()) {
+                heads.add(new Cursor(iterator));
+            }
+        }
+
+        List<Event> merged = new ArrayList<>(total);
+        while (!heads.isEmpty()) {
+            Cursor cursor = heads.poll();
+            merged.add(cursor.head);
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * The current position within one sorted list during a k-way merge
+     */
+    private static class Cursor {
+        private final Iterator<Event> iterator;
+        private Event head;
+
+        Cursor(Iterator<Event> iterator) {
+            this.iterator = iterator;
+            this.head = iterator.next();
+        }
+
+        boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            head = iterator.next();
+            return true;
+        }
     }
 
     /**
@@ -128,26 +417,11 @@ public class EventCollection {
      * @param value the value of the specified attribute, e.g. all events with the title 'Anniversary'
      * @return an array of strings with all the eventIDs of the events that match the search criteria
     */ 
+    @Override
     public String[] search(String attribute, Object value) {
-        return events.stream()
-                .filter(event -> {
-                    switch (attribute.toLowerCase()) {
-                        case "title":
-                            return event.getTitle().equals(value);
-                        case "datetime":
-                            return event.getDateTime().equals(value);
-                        case "venue":
-                            return event.getVenue().equals(value);
-                        case "description":
-                            return event.getDescription().equals(value);
-                        case "priority":
-                            return event.isHighPriority() == (boolean) value;
-                        case "organization":
-                            return event.getOrganization().equals(value);
-                        default:
-                            return false;
-                    }
-                })
+        maintainTiers();
+        return Stream.concat(events.values().stream().filter(event -> matches(event, attribute, value)),
+                        archivedMatches(attribute, value).stream())
                 .map(Event::id)
                 .toArray(String[]::new);
     }
@@ -157,49 +431,126 @@ public class EventCollection {
      * @param attribute the attribute of the events to filter by, e.g. 'title'
      * @param value the value that the attribute should be equal to
     */ 
+    @Override
     public void view(String attribute, Object value) {
-        for (Event event : events) {
-            switch (attribute.toLowerCase()) {
-                case "title":
-                    if (event.getTitle().equals(value)) {
-                        event.display();
-                    }
-                    break;
-                case "datetime":
-                    if (event.getDateTime().equals(value)) {
-                        event.display();
-                    }
-                    break;
-                case "venue":
-                    if (event.getVenue().equals(value)) {
-                        event.display();
-                    }
-                    break;
-                case "description":
-                    if (event.getDescription().equals(value)) {
-                        event.display();
-                    }
-                    break;
-                case "organization":
-                    if (event.getOrganization().equals(value)) {
-                        event.display();
-                    }
-                    break;
-                case "priority":
-                    if (event.isHighPriority() == (Boolean) value) {
-                        event.display();
-                    }
-                    break;
-                default:
-                    break; // Invalid attribute
+        maintainTiers();
+        for (Event event : events.values()) {
+            if (matches(event, attribute, value)) {
+                event.display();
+            }
+        }
+        for (Event event : archivedMatches(attribute, value)) {
+            event.display();
+        }
+    }
+
+    /**
+     * checks whether an attribute of an event is equal to a value
+     * @param event the event to check
+     * @param attribute the attribute of the event to compare, e.g. 'title'
+     * @param value the value the attribute should be equal to
+     * @return whether or not the event matches, false for an invalid attribute
+     */
+    private static boolean matches(Event event, String attribute, Object value) {
+        switch (attribute.toLowerCase()) {
+            case "title":
+                return event.getTitle().equals(value);
+            case "datetime":
+                return event.getDateTime().equals(value);
+            case "venue":
+                return event.getVenue().equals(value);
+            case "description":
+                return event.getDescription().equals(value);
+            case "priority":
+                return event.isHighPriority() == (boolean) value;
+            case "organization":
+                return event.getOrganization().equals(value);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * finds the archived events with an attribute equal to a value. A date and time is
+     * looked up in the archive's date index, and only when it is not after the latest
+     * archived event; any other attribute has to scan the whole archive
+     * @return the matching archived events
+     */
+    private List<Event> archivedMatches(String attribute, Object value) {
+        List<Event> matches = new ArrayList<>();
+        if (archive == null || archive.size() == 0) {
+            return matches;
+        }
+        if (attribute.equalsIgnoreCase("datetime")) {
+            if (value instanceof LocalDateTime && reachesArchive((LocalDateTime) value)) {
+                matches.addAll(archive.between((LocalDateTime) value, (LocalDateTime) value));
             }
+        } else {
+            archive.forEach(event -> {
+                if (matches(event, attribute, value)) {
+                    matches.add(event);
+                }
+            });
         }
+        return matches;
+    }
+
+    /**
+     * collects the events taking place within a date range, inclusive of both ends.
+     * The archive is only read when the range starts before its latest event
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the set of events between start and end
+     */
+    @Override
+    public Set<Event> between(LocalDateTime start, LocalDateTime end) {
+        maintainTiers();
+        Set<Event> matches = events.values().stream()
+                .filter(event -> !event.getDateTime().isBefore(start) && !event.getDateTime().isAfter(end))
+                .collect(Collectors.toSet());
+        if (reachesArchive(start)) {
+            matches.addAll(archive.between(start, end));
+        }
+        return matches;
+    }
+
+    /**
+     * Performs an action on every event, in memory first and then streamed from the archive
+     * @param action the action to perform on each event
+     */
+    @Override
+    public void forEachEvent(Consumer<Event> action) {
+        maintainTiers();
+        events.values().forEach(action);
+        if (archive != null) {
+            archive.forEach(action);
+        }
+    }
+
+    /**
+     * @return the number of events in the collection, including archived events
+     */
+    @Override
+    public int size() {
+        return events.size() + (archive == null ? 0 : archive.size());
+    }
+
+    /**
+     * Checks both tiers without reading any archived event
+     * @param eventID the ID number of the event, as a String
+     * @return whether or not the collection holds an event with this ID
+     */
+    @Override
+    public boolean contains(String eventID) {
+        return events.containsKey(eventID) || (archive != null && archive.contains(eventID));
     }
 
     /** 
-     * @return the set of events
+     * @return a read-only snapshot of the in-memory events, which excludes archived events
     */ 
+    @Override
     public Set<Event> getEvents() {
-        return events;
+        maintainTiers();
+        return Collections.unmodifiableSet(new HashSet<>(events.values()));
     }
 }
\ No newline at end of file
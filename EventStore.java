@@ -0,0 +1,106 @@
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * This interface is the set of operations the application performs on a calendar of events.
+ * It is implemented by EventCollection, which holds the events of a single collection, and by
+ * ShardedEventCollection, which spreads them over one EventCollection per organization.
+ */
+public interface EventStore {
+    /**
+     * Adding an event to the calendar
+     * @param event
+     * @return whether or not adding event was successful
+     */
+    boolean add(Event event);
+
+    /**
+     * Adding a batch of events to the calendar
+     * @param batch the events to add
+     * @return the number of events that were added
+     */
+    int addAll(Collection<Event> batch);
+
+    /**
+     * removes an event with the specified eventID
+     * @param eventID the ID number of the event, as a String
+     * @return whether or not the event was successfully removed
+     */
+    boolean remove(String eventID);
+
+    /**
+     * retrieve an event by its ID
+     * @param eventID the ID number of the event, as a String
+     * @return the event with the specified eventID, or null if there is none
+     */
+    Event getEventByID(String eventID);
+
+    /**
+     * modifies an attribute of the specified event
+     * @param eventID the ID number of the event, as a String
+     * @param attribute the attribute of the event to modify, e.g. 'title'
+     * @param newValue the value to update the specified attribute to
+     * @return whether or not the modification was successful
+     */
+    boolean modifyEvent(String eventID, String attribute, Object newValue);
+
+    /**
+     * @param attribute the attribute of the event to sort by, e.g. 'title'
+     * @return a list of the events, sorted by the specified attribute
+     */
+    List<Event> sort(String attribute);
+
+    /**
+     * searches for events based on a specified attribute and value
+     * @param attribute the attribute of the events we're looking, e.g. 'title'
+     * @param value the value of the specified attribute
+     * @return an array of strings with all the eventIDs of the events that match the search criteria
+     */
+    String[] search(String attribute, Object value);
+
+    /**
+     * Displays events based on a specified filter
+     * @param attribute the attribute of the events to filter by, e.g. 'title'
+     * @param value the value that the attribute should be equal to
+     */
+    void view(String attribute, Object value);
+
+    /**
+     * collects the events taking place within a date range, inclusive of both ends
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the set of events between start and end
+     */
+    Set<Event> between(LocalDateTime start, LocalDateTime end);
+
+    /**
+     * Moves past events out of memory into the archive
+     * @return the number of events archived
+     */
+    int archivePastEvents();
+
+    /**
+     * Performs an action on every event, including archived events
+     * @param action the action to perform on each event
+     */
+    void forEachEvent(Consumer<Event> action);
+
+    /**
+     * @param eventID the ID number of the event, as a String
+     * @return whether or not an event with this ID is in the calendar, including archived events
+     */
+    boolean contains(String eventID);
+
+    /**
+     * @return the number of events, including archived events
+     */
+    int size();
+
+    /**
+     * @return the in-memory events, which excludes archived events
+     */
+    Set<Event> getEvents();
+}
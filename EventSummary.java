@@ -1,17 +1,19 @@
 import java.time.LocalDateTime;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public class EventSummary {
-    private Set<Event> events;
+    private int eventCount;
+    private int highPriorityCount;
+    private Set<String> organizers = new HashSet<>();
 
     /**
-     * Constructor that takes an EventCollection
+     * Constructor that takes an EventCollection; the events are counted as they are streamed,
+     * archived events included, so they are never all held in memory at once
      * @param eventCollection
     */ 
-    public EventSummary(EventCollection eventCollection) {
-        this.events = eventCollection.getEvents();
+    public EventSummary(EventStore eventCollection) {
+        eventCollection.forEachEvent(this::count);
         generateSummary();
     }
 
@@ -21,28 +23,28 @@ public class EventSummary {
      * @param start
      * @param end
     */ 
-    public EventSummary(EventCollection eventCollection, LocalDateTime start, LocalDateTime end) {
-        this.events = eventCollection.getEvents().stream()
-                .filter(event -> !event.getDateTime().isBefore(start) && !event.getDateTime().isAfter(end))
-                .collect(Collectors.toSet());
+    public EventSummary(EventStore eventCollection, LocalDateTime start, LocalDateTime end) {
+        eventCollection.between(start, end).forEach(this::count);
         generateSummary();
     }
 
+    /**
+     * Adds an event to the totals of the summary
+     * @param event
+    */ 
+    private void count(Event event) {
+        eventCount++;
+        organizers.add(event.getOrganization());
+        if (event.isHighPriority()) {
+            highPriorityCount++;
+        }
+    }
+
     /**
      * Generates a summary of the events
     */ 
     private void generateSummary() {
-        System.out.println("Total number of events: " + events.size());
-
-        Set<String> organizers = new HashSet<>();
-        int highPriorityCount = 0;
-
-        for (Event event : events) {
-            organizers.add(event.getOrganization());
-            if (event.isHighPriority()) {
-                highPriorityCount++;
-            }
-        }
+        System.out.println("Total number of events: " + eventCount);
 
         System.out.println("Number of organizers: " + organizers.size());
         System.out.println("High priority events: " + highPriorityCount);
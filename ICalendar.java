@@ -0,0 +1,495 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * This class reads and writes events in the iCalendar (RFC 5545) format. Both directions
+ * stream one VEVENT at a time, so only the event being parsed and the current batch of
+ * events are held in memory, however large the calendar file is.
+ * Property values are capped at MAX_PROPERTY_LENGTH characters, and continuation lines of
+ * properties that are not imported are skipped without being stored.
+ * Event attributes map to VEVENT properties as follows: eventID to UID, title to SUMMARY,
+ * date and time to DTSTART, venue to LOCATION, organization to the CN of ORGANIZER,
+ * description to DESCRIPTION and high priority to a PRIORITY of 1 to 4.
+ */
+public class ICalendar {
+    public static final int BATCH_SIZE = 1000;
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final int MAX_LINE_OCTETS = 75;
+    public static final int MAX_PROPERTY_LENGTH = 1 << 20;
+    private static final Set<String> IMPORTED_PROPERTIES = Set.of(
+            "UID", "SUMMARY", "LOCATION", "DESCRIPTION", "ORGANIZER", "DTSTART", "PRIORITY");
+
+    private ICalendar() {}
+
+    /**
+     * Reads every VEVENT from a calendar and adds it to the collection in batches
+     * @param in the calendar to read
+     * @param eventCollection the collection to add the events to
+     * @return the number of events read, including any the collection rejected as duplicates;
+     *         a VEVENT without a readable DTSTART, or with an imported property longer than
+     *         MAX_PROPERTY_LENGTH, is skipped and not counted
+     * @throws IOException if the calendar cannot be read
+     */
+    public static int importFrom(Reader in, EventStore eventCollection) throws IOException {
+        LineReader reader = new LineReader(in, MAX_PROPERTY_LENGTH);
+        List<Event> batch = new ArrayList<>(BATCH_SIZE);
+        int count = 0;
+
+        EventBuilder builder = null;
+        int nesting = 0; // depth of components such as VALARM inside the current VEVENT
+        String line = reader.readLine();
+        while (line != null) {
+            // only unfold properties that become part of the event; the rest are skipped
+            boolean imported = builder != null && nesting == 0 && IMPORTED_PROPERTIES.contains(propertyName(line));
+            boolean tooLong = reader.truncated() || line.length() > MAX_PROPERTY_LENGTH;
+            StringBuilder unfolded = null;
+            String next;
+            while ((next = reader.readLine()) != null && !next.isEmpty()
+                    && (next.charAt(0) == ' ' || next.charAt(0) == '\t')) {
+                if (!imported || tooLong) {
+                    continue;
+                }
+                int length = (unfolded == null ? line.length() : unfolded.length()) + next.length() - 1;
+                if (reader.truncated() || length > MAX_PROPERTY_LENGTH) {
+                    tooLong = true;
+                    unfolded = null;
+                    continue;
+                }
+                if (unfolded == null) {
+                    unfolded = new StringBuilder(line);
+                }
+                unfolded.append(next, 1, next.length());
+            }
+            if (unfolded != null) {
+                line = unfolded.toString();
+            }
+
+            if (line.equalsIgnoreCase("BEGIN:VEVENT")) {
+                builder = new EventBuilder();
+                nesting = 0;
+            } else if (builder == null) {
+                // outside of any VEVENT
+            } else if (line.regionMatches(true, 0, "BEGIN:", 0, 6)) {
+                nesting++;
+            } else if (line.regionMatches(true, 0, "END:", 0, 4) && nesting > 0) {
+                nesting--;
+            } else if (line.equalsIgnoreCase("END:VEVENT")) {
+                Event event = builder.build();
+                builder = null;
+                if (event != null) { // null for a malformed VEVENT
+                    batch.add(event);
+                    count++;
+                    if (batch.size() == BATCH_SIZE) {
+                        eventCollection.addAll(batch);
+                        batch.clear();
+                    }
+                }
+            } else if (imported && tooLong) {
+                builder.malformed = true;
+            } else if (imported) {
+                builder.accept(line);
+            }
+            line = next;
+        }
+        eventCollection.addAll(batch);
+        return count;
+    }
+
+    /**
+     * @return the upper-cased name of the property on a content line
+     */
+    private static String propertyName(String line) {
+        int end = 0;
+        while (end < line.length() && line.charAt(end) != ';' && line.charAt(end) != ':') {
+            end++;
+        }
+        return line.substring(0, end).toUpperCase();
+    }
+
+    /**
+     * Writes every event in the collection to a calendar as a VEVENT
+     * @param out the calendar to write to
+     * @param eventCollection the collection of events to write
+     * @return the number of events written
+     * @throws IOException if the calendar cannot be written
+     */
+    public static int exportTo(Writer out, EventStore eventCollection) throws IOException {
+        BufferedWriter writer = new BufferedWriter(out, 1 << 16);
+        String timestamp = LocalDateTime.now(ZoneOffset.UTC).format(DATE_TIME) + "Z";
+        int[] count = {0};
+
+        writeLine(writer, "BEGIN:VCALENDAR");
+        writeLine(writer, "VERSION:2.0");
+        writeLine(writer, "PRODID:-//Event Scheduler and Calendar//EN");
+        try {
+            eventCollection.forEachEvent(event -> {
+                try {
+                    writeEvent(writer, event, timestamp);
+                    count[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writeLine(writer, "END:VCALENDAR");
+        writer.flush();
+        return count[0];
+    }
+
+    private static void writeEvent(Writer writer, Event event, String timestamp) throws IOException {
+        writeLine(writer, "BEGIN:VEVENT");
+        writeLine(writer, "UID:" + escape(event.id()));
+        writeLine(writer, "DTSTAMP:" + timestamp);
+        writeLine(writer, "DTSTART:" + event.getDateTime().format(DATE_TIME));
+        writeLine(writer, "SUMMARY:" + escape(event.getTitle()));
+        writeLine(writer, "LOCATION:" + escape(event.getVenue()));
+        // the organization has no calendar address, so it is carried in the common name
+        writeLine(writer, "ORGANIZER;CN=" + quote(event.getOrganization()) + ":invalid:nomail");
+        writeLine(writer, "DESCRIPTION:" + escape(event.getDescription()));
+        if (event.isHighPriority()) {
+            writeLine(writer, "PRIORITY:1");
+        }
+        writeLine(writer, "END:VEVENT");
+    }
+
+    /**
+     * Writes a content line, folding it so that no line is longer than 75 octets
+     */
+    private static void writeLine(Writer writer, String line) throws IOException {
+        int start = 0;
+        int octets = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            int width = c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isHighSurrogate(c) ? 4 : 3;
+            if (octets + width > MAX_LINE_OCTETS) {
+                writer.write(line, start, i - start);
+                writer.write("\r\n ");
+                start = i;
+                octets = 1;
+            }
+            octets += width;
+            if (width == 4) {
+                i++; // keep surrogate pairs on the same line
+            }
+        }
+        writer.write(line, start, line.length() - start);
+        writer.write("\r\n");
+    }
+
+    /**
+     * escapes a TEXT property value
+     */
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                case ';':
+                case ',':
+                    escaped.append('\\').append(c);
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * unescapes a TEXT property value
+     */
+    private static String unescape(String text) {
+        if (text.indexOf('\\') < 0) {
+            return text;
+        }
+        StringBuilder unescaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char escapedChar = text.charAt(++i);
+                unescaped.append(escapedChar == 'n' || escapedChar == 'N' ? '\n' : escapedChar);
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    /**
+     * encodes a parameter value with the RFC 6868 escapes, then quotes it if it contains
+     * characters that would end the parameter
+     */
+    private static String quote(String value) {
+        StringBuilder encoded = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '^':
+                    encoded.append("^^");
+                    break;
+                case '"':
+                    encoded.append("^'");
+                    break;
+                case '\n':
+                    encoded.append("^n");
+                    break;
+                case '\r':
+                    break;
+                default:
+                    encoded.append(c);
+            }
+        }
+        String text = encoded.toString();
+        if (text.indexOf(':') >= 0 || text.indexOf(';') >= 0 || text.indexOf(',') >= 0) {
+            return '"' + text + '"';
+        }
+        return text;
+    }
+
+    /**
+     * unquotes a parameter value and decodes its RFC 6868 escapes
+     */
+    private static String unquote(String value) {
+        String text = value;
+        if (text.length() >= 2 && text.startsWith("\"") && text.endsWith("\"")) {
+            text = text.substring(1, text.length() - 1);
+        }
+        if (text.indexOf('^') < 0) {
+            return text;
+        }
+        StringBuilder decoded = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            char escaped = i + 1 < text.length() ? text.charAt(i + 1) : 0;
+            if (c == '^' && (escaped == '^' || escaped == '\'' || escaped == 'n')) {
+                decoded.append(escaped == '\'' ? '"' : escaped == 'n' ? '\n' : '^');
+                i++;
+            } else {
+                decoded.append(c); // a caret that is not an escape stays as it is
+            }
+        }
+        return decoded.toString();
+    }
+
+    /**
+     * @return the index of the first occurrence of the character that is not inside a
+     *         quoted parameter value, or -1 if there is none
+     */
+    private static int indexOfUnquoted(String text, char target, int from) {
+        boolean quoted = false;
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == target && !quoted) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads physical lines like BufferedReader, but keeps at most maxLength characters of
+     * each line and discards the rest, so one huge line cannot exhaust the heap
+     */
+    private static class LineReader {
+        private final Reader in;
+        private final int maxLength;
+        private final char[] buffer = new char[1 << 16];
+        private final StringBuilder line = new StringBuilder();
+        private int position, limit;
+        private boolean truncated;
+
+        LineReader(Reader in, int maxLength) {
+            this.in = in;
+            this.maxLength = maxLength + 1; // room for the carriage return before the newline
+        }
+
+        /**
+         * @return the next line without its line ending, or null at the end of the input
+         */
+        String readLine() throws IOException {
+            line.setLength(0);
+            truncated = false;
+            while (true) {
+                if (position == limit) {
+                    limit = Math.max(in.read(buffer, 0, buffer.length), 0);
+                    position = 0;
+                    if (limit == 0) {
+                        return line.length() > 0 || truncated ? line.toString() : null;
+                    }
+                }
+                int start = position;
+                while (position < limit && buffer[position] != '\n') {
+                    position++;
+                }
+                int room = maxLength - line.length();
+                if (position - start > room) {
+                    truncated = true;
+                }
+                line.append(buffer, start, Math.min(position - start, room));
+                if (position < limit) {
+                    position++; // the newline
+                    int length = line.length();
+                    if (length > 0 && line.charAt(length - 1) == '\r') {
+                        line.setLength(length - 1);
+                    }
+                    return line.toString();
+                }
+            }
+        }
+
+        /**
+         * @return whether or not characters were discarded from the last line read
+         */
+        boolean truncated() {
+            return truncated;
+        }
+    }
+
+    /**
+     * Collects the properties of one VEVENT and turns them into an Event
+     */
+    private static class EventBuilder {
+        private String uid, summary, location, organizer, description;
+        private LocalDateTime dtstart;
+        private boolean highPriority, malformed;
+
+        /**
+         * reads one unfolded content line of the form name;param=value:value
+         */
+        void accept(String line) {
+            // the value starts at the first colon that is not inside a quoted parameter value
+            int colon = indexOfUnquoted(line, ':', 0);
+            if (colon < 0) {
+                return; // not a property
+            }
+            int semicolon = line.indexOf(';');
+            int nameEnd = semicolon >= 0 && semicolon < colon ? semicolon : colon;
+            String name = line.substring(0, nameEnd).toUpperCase();
+            String params = line.substring(nameEnd, colon);
+            String value = line.substring(colon + 1);
+
+            try {
+                accept(name, params, value);
+            } catch (RuntimeException e) {
+                malformed = true; // e.g. an unreadable DTSTART or PRIORITY
+            }
+        }
+
+        private void accept(String name, String params, String value) {
+            switch (name) {
+                case "UID":
+                    uid = unescape(value);
+                    break;
+                case "SUMMARY":
+                    summary = unescape(value);
+                    break;
+                case "LOCATION":
+                    location = unescape(value);
+                    break;
+                case "DESCRIPTION":
+                    description = unescape(value);
+                    break;
+                case "ORGANIZER":
+                    String commonName = parameter(params, "CN");
+                    organizer = commonName != null ? commonName
+                            : value.regionMatches(true, 0, "mailto:", 0, 7) ? value.substring(7) : value;
+                    break;
+                case "DTSTART":
+                    dtstart = parseDateTime(value);
+                    break;
+                case "PRIORITY":
+                    int priority = Integer.parseInt(value.trim());
+                    highPriority = priority >= 1 && priority <= 4;
+                    break;
+                default:
+                    break; // property with no Event attribute
+            }
+        }
+
+        /**
+         * @return the event, or null if the VEVENT has no DTSTART or a property could not be read
+         */
+        Event build() {
+            if (dtstart == null || malformed) {
+                return null;
+            }
+            Event event = new Event(dtstart, summary == null ? "Untitled" : summary,
+                    organizer == null ? "" : organizer,
+                    uid == null ? "ID" + UUID.randomUUID() : uid);
+            if (location != null) {
+                event.setVenue(location);
+            }
+            if (description != null) {
+                event.setDescription(description);
+            }
+            event.setPriority(highPriority);
+            return event;
+        }
+
+        /**
+         * @return the value of a named parameter, or null if the property does not have it
+         */
+        private static String parameter(String params, String name) {
+            int start = 0;
+            while (start < params.length()) {
+                if (params.charAt(start) == ';') {
+                    start++;
+                }
+                int end = indexOfUnquoted(params, ';', start);
+                if (end < 0) {
+                    end = params.length();
+                }
+                String param = params.substring(start, end);
+                int equals = param.indexOf('=');
+                if (equals > 0 && param.substring(0, equals).equalsIgnoreCase(name)) {
+                    return unquote(param.substring(equals + 1));
+                }
+                start = end;
+            }
+            return null;
+        }
+
+        /**
+         * parses a DATE or DATE-TIME value; UTC times are converted to the local time zone
+         * and times with a TZID are taken as the local time they name
+         */
+        private static LocalDateTime parseDateTime(String value) {
+            String text = value.trim();
+            if (text.length() == 8) {
+                return LocalDate.parse(text, DATE).atStartOfDay();
+            }
+            if (text.endsWith("Z") || text.endsWith("z")) {
+                return LocalDateTime.parse(text.substring(0, text.length() - 1), DATE_TIME)
+                        .atOffset(ZoneOffset.UTC)
+                        .atZoneSameInstant(ZoneId.systemDefault())
+                        .toLocalDateTime();
+            }
+            return LocalDateTime.parse(text, DATE_TIME);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Measures iCalendar import and export on a generated calendar file.
+ * Reports the throughput of each phase and the heap still live after it, measured after a
+ * full garbage collection so the figure does not depend on -Xmx. Running with a small heap,
+ * e.g. -Xmx128m, shows whether the import fits in it at all.
+ * Usage: java IcsBenchmark [number of events, default 1000000]
+ */
+public class IcsBenchmark {
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+    private static final int ORGANIZATIONS = 100;
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path directory = Files.createTempDirectory("ics-benchmark");
+        Path source = directory.resolve("generated.ics");
+        Path exported = directory.resolve("exported.ics");
+
+        try {
+            System.out.printf("max heap %,d MB%n", Runtime.getRuntime().maxMemory() >> 20);
+            long start = System.nanoTime();
+            generate(source, count);
+            report("generate", count, System.nanoTime() - start, Files.size(source));
+
+            // every shard archives past events, as Main does, so only upcoming events stay on the heap
+            ShardedEventCollection eventCollection = new ShardedEventCollection(organization -> {
+                try {
+                    return new EventCollection(new EventArchive(directory.resolve(organization + ".seg"), 1000),
+                            new EventArchive(directory.resolve(organization + ".journal"), 0), Duration.ofDays(30));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            start = System.nanoTime();
+            int imported;
+            try (Reader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+                imported = ICalendar.importFrom(reader, eventCollection);
+            }
+            report("import", imported, System.nanoTime() - start, Files.size(source));
+
+            start = System.nanoTime();
+            int written;
+            try (Writer writer = Files.newBufferedWriter(exported, StandardCharsets.UTF_8)) {
+                written = ICalendar.exportTo(writer, eventCollection);
+            }
+            report("export", written, System.nanoTime() - start, Files.size(exported));
+            System.out.println("events in memory: " + eventCollection.getEvents().size()
+                    + ", archived: " + (eventCollection.size() - eventCollection.getEvents().size()));
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Writes a calendar of generated events, one percent of them upcoming and the rest past
+     */
+    private static void generate(Path file, int count) throws IOException {
+        LocalDateTime past = LocalDateTime.of(2015, 1, 1, 9, 0);
+        LocalDateTime upcoming = LocalDateTime.now().plusYears(1).withNano(0);
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//Event Scheduler and Calendar//Benchmark//EN\r\n");
+            for (int i = 0; i < count; i++) {
+                LocalDateTime dateTime = i % 100 == 0 ? upcoming.plusMinutes(i) : past.plusMinutes(5L * i);
+                writer.write("BEGIN:VEVENT\r\n"
+                        + "UID:event-" + i + "\r\n"
+                        + "DTSTAMP:20240101T000000Z\r\n"
+                        + "DTSTART:" + dateTime.format(DATE_TIME) + "\r\n"
+                        + "SUMMARY:Generated event " + i + "\r\n"
+                        + "LOCATION:Room " + (i % 50) + "\r\n"
+                        + "ORGANIZER;CN=Organization " + (i % ORGANIZATIONS) + ":invalid:nomail\r\n"
+                        + "DESCRIPTION:Benchmark event number " + i + " with a description long enough\r\n"
+                        + "  to be folded onto a second content line\r\n"
+                        + (i % 10 == 0 ? "PRIORITY:1\r\n" : "")
+                        + "END:VEVENT\r\n");
+            }
+            writer.write("END:VCALENDAR\r\n");
+        }
+    }
+
+    /**
+     * @return the heap in use after a full garbage collection, i.e. only what is still reachable
+     */
+    private static long liveHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static void report(String phase, int events, long elapsedNanos, long bytes) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%-8s %,d events, %,d MB in %.2f s: %,.0f events/s, %.1f MB/s, live heap after GC %,d MB%n",
+                phase, events, bytes >> 20, seconds, events / seconds, (bytes >> 20) / seconds, liveHeap() >> 20);
+    }
+}
@@ -1,3 +1,15 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
@@ -9,10 +21,19 @@ import java.util.Scanner;
  * deleting, viewing, searching, sorting, and generating summaries of events.
  */
 public class Main {
-    private static EventCollection eventCollection = new EventCollection();
+    // events older than the horizon are moved out of memory into a per-organization archive
+    private static final String ARCHIVE_DIR = System.getProperty("archive.dir", "archive");
+    private static final Duration ARCHIVE_HORIZON = Duration.ofDays(Integer.getInteger("archive.horizonDays", 30));
+    private static final int ARCHIVE_CACHE_SIZE = Integer.getInteger("archive.cacheSize", 1000);
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private static ShardedEventCollection eventCollection = new ShardedEventCollection(Main::openShard);
     private static Scanner scanner = new Scanner(System.in);
 
     public static void main(String[] args) {
+        restoreShards();
         while (true) {
             System.out.println("\nEnter command:");
             String input = scanner.nextLine();
@@ -45,6 +66,12 @@ public class Main {
                 case "generate_summary":
                     generateSummary(command[1]);
                     break;
+                case "import_ics":
+                    importIcs(command[1]);
+                    break;
+                case "export_ics":
+                    exportIcs(command[1]);
+                    break;
                 case "exit":
                     System.out.println("Exiting...");
                     return;
@@ -97,7 +124,7 @@ public class Main {
                 System.out.println("Event with this ID already exists.");
             }
     
-            System.out.println("Current number of events: " + eventCollection.getEvents().size()); // Verify event count
+            System.out.println("Current number of events: " + eventCollection.size()); // Verify event count
         } catch (Exception e) {
             System.out.println("Error creating event: " + e.getMessage());
         }
@@ -197,12 +224,10 @@ public class Main {
      * View all events in the collection.
      */
     private static void viewAllEvents() {
-        if (eventCollection.getEvents().isEmpty()) {
+        if (eventCollection.size() == 0) {
             System.out.println("No events found.");
         } else {
-            for (Event event : eventCollection.getEvents()) {
-                event.display();
-            }
+            eventCollection.forEachEvent(Event::display);
         }
     }    
 
@@ -273,6 +298,124 @@ public class Main {
         }
     }
 
+    /**
+     * Imports the events from an iCalendar file.
+     * @param args
+     */
+    private static void importIcs(String args) {
+        String path = args.trim();
+        if (path.isEmpty()) {
+            System.out.println("Usage: import_ics <file>");
+            return;
+        }
+
+        int before = eventCollection.size();
+        try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            long start = System.nanoTime();
+            int read = ICalendar.importFrom(reader, eventCollection);
+            long elapsed = System.nanoTime() - start;
+            int added = eventCollection.size() - before;
+            System.out.println("Imported " + added + " of " + read + " events" + rate(read, elapsed));
+        } catch (Exception e) {
+            System.out.println("Error importing events: " + e.getMessage());
+        } catch (OutOfMemoryError e) {
+            // the batches added before the error are kept, so say how many made it in
+            System.out.println("Error importing events: ran out of memory after adding "
+                    + (eventCollection.size() - before) + " events. Restart with a larger -Xmx to import the rest.");
+        }
+    }
+
+    /**
+     * Exports every event to an iCalendar file.
+     * @param args
+     */
+    private static void exportIcs(String args) {
+        String path = args.trim();
+        if (path.isEmpty()) {
+            System.out.println("Usage: export_ics <file>");
+            return;
+        }
+
+        try (Writer writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            long start = System.nanoTime();
+            int written = ICalendar.exportTo(writer, eventCollection);
+            long elapsed = System.nanoTime() - start;
+            System.out.println("Exported " + written + " events" + rate(written, elapsed));
+        } catch (Exception e) {
+            System.out.println("Error exporting events: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Helper method to describe how long a transfer took.
+     * @param count the number of events transferred
+     * @param elapsedNanos the time the transfer took, in nanoseconds
+     * @return the elapsed time and events per second
+     */
+    private static String rate(int count, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        return String.format(" in %.2f s (%.0f events/s)", seconds, seconds > 0 ? count / seconds : 0.0);
+    }
+
+    /**
+     * Reopens the shard of every organization that has an archive segment from a previous run.
+     */
+    private static void restoreShards() {
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(Paths.get(ARCHIVE_DIR), "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : segments) {
+                String fileName = segment.getFileName().toString();
+                String organization = fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length());
+                try {
+                    eventCollection.shard(URLDecoder.decode(organization, StandardCharsets.UTF_8));
+                } catch (UncheckedIOException e) {
+                    System.out.println("Error restoring archive " + fileName + ": " + e.getCause().getMessage());
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // nothing has been archived yet
+        } catch (IOException e) {
+            System.out.println("Error restoring archive: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Helper method to create the shard for an organization, backed by its own archive segment
+     * and a journal of its upcoming events.
+     * @param organization
+     * @return the shard for the organization
+     */
+    private static EventCollection openShard(String organization) {
+        String fileName = fileNameOf(organization);
+        try {
+            EventArchive archive = new EventArchive(Paths.get(ARCHIVE_DIR, fileName + SEGMENT_SUFFIX), ARCHIVE_CACHE_SIZE);
+            // upcoming events are all held in memory, so the journal needs no cache
+            EventArchive journal = new EventArchive(Paths.get(ARCHIVE_DIR, fileName + JOURNAL_SUFFIX), 0);
+            return new EventCollection(archive, journal, ARCHIVE_HORIZON);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Helper method to name the segment files of an organization. Everything except lower-case
+     * letters, digits, '-' and '_' is percent-encoded, so organizations that differ only in case,
+     * e.g. "Acme" and "acme", still get different files on a case-insensitive filesystem.
+     * URLDecoder turns the name back into the organization.
+     * @param organization
+     * @return the file name, without a suffix
+     */
+    private static String fileNameOf(String organization) {
+        StringBuilder fileName = new StringBuilder();
+        for (byte b : organization.getBytes(StandardCharsets.UTF_8)) {
+            if ((b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '-' || b == '_') {
+                fileName.append((char) b);
+            } else {
+                fileName.append(String.format("%%%02X", b & 0xff));
+            }
+        }
+        return fileName.toString();
+    }
+
     /**
      * Helper method to generate a unique event ID.
      * @return unique EventID
@@ -0,0 +1,311 @@
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * This class is an event collection partitioned by organization. Every organization gets
+ * its own EventCollection shard, so a large organization only ever grows its own shard.
+ * Queries that span organizations (search, sort, view and summaries) fan out to the shards
+ * in parallel and merge the results. Event IDs stay unique across the whole calendar:
+ * an event is only added when no shard holds its ID. No calendar-wide index of IDs is
+ * kept, so lookups by ID ask the shards in turn.
+ */
+public class ShardedEventCollection implements EventStore {
+    private final Map<String, EventCollection> shards;
+    private final Function<String, EventCollection> shardFactory;
+
+    public ShardedEventCollection() {
+        this(organization -> new EventCollection());
+    }
+
+    /**
+     * Constructs a sharded collection that builds each new shard with the given factory
+     * @param shardFactory creates the shard for an organization the first time it is seen
+     */
+    public ShardedEventCollection(Function<String, EventCollection> shardFactory) {
+        this.shards = new ConcurrentHashMap<>();
+        this.shardFactory = shardFactory;
+    }
+
+    /**
+     * Adding an event to the shard of its organization. Adds are serialized, so no other
+     * event can take the ID between checking the shards and adding to one
+     * @param event
+     * @return whether or not adding event was successful, false if any organization
+     *         already has an event with this ID
+     */
+    @Override
+    public synchronized boolean add(Event event) {
+        if (contains(event.id())) {
+            return false; // event with this ID already exists
+        }
+        EventCollection shard = shard(event.getOrganization());
+        synchronized (shard) {
+            return shard.add(event);
+        }
+    }
+
+    /**
+     * Adding a batch of events. The shards check the whole batch for IDs they already hold
+     * in parallel, then the rest is grouped by organization so each shard is locked once per
+     * batch; the groups are added one after another, as a batch holds only a few events per shard
+     * @param batch the events to add
+     * @return the number of events that were added
+     */
+    @Override
+    public synchronized int addAll(Collection<Event> batch) {
+        Set<String> taken = ConcurrentHashMap.newKeySet();
+        shards.values().parallelStream().forEach(shard -> {
+            synchronized (shard) {
+                for (Event event : batch) {
+                    if (shard.contains(event.id())) {
+                        taken.add(event.id());
+                    }
+                }
+            }
+        });
+        Map<String, List<Event>> byOrganization = batch.stream()
+                .filter(event -> taken.add(event.id())) // also drops an ID repeated within the batch
+                .collect(Collectors.groupingBy(Event::getOrganization));
+        return byOrganization.entrySet().stream()
+                .mapToInt(group -> {
+                    EventCollection shard = shard(group.getKey());
+                    synchronized (shard) {
+                        return shard.addAll(group.getValue());
+                    }
+                })
+                .sum();
+    }
+
+    /**
+     * @return the shard holding the event with this ID, or null if no shard holds it
+     */
+    private EventCollection shardOf(String eventID) {
+        for (EventCollection shard : shards.values()) {
+            synchronized (shard) {
+                if (shard.contains(eventID)) {
+                    return shard;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param eventID the ID number of the event, as a String
+     * @return whether or not any shard holds an event with this ID
+     */
+    @Override
+    public boolean contains(String eventID) {
+        return shardOf(eventID) != null;
+    }
+
+    /**
+     * removes an event with the specified eventID from whichever shard holds it
+     *
+     * @param eventID the ID number of the event, as a String
+     * @return whether or not the event was successfully removed
+     */
+    @Override
+    public boolean remove(String eventID) {
+        EventCollection shard = shardOf(eventID);
+        if (shard == null) {
+            return false;
+        }
+        synchronized (shard) {
+            return shard.remove(eventID);
+        }
+    }
+
+    /**
+     * retrieve an event by its ID from whichever shard holds it
+     * @param eventID the ID number of the event, as a String
+     * @return the event with the specified eventID
+    */
+    @Override
+    public Event getEventByID(String eventID) {
+        EventCollection shard = shardOf(eventID);
+        if (shard == null) {
+            return null; // event not found
+        }
+        synchronized (shard) {
+            return shard.getEventByID(eventID);
+        }
+    }
+
+    /**
+     * modifies an attribute of the specified event in whichever shard holds it
+     * @param eventID the ID number of the event, as a String
+     * @param attribute the attribute of the event to modify, e.g. 'title'
+     * @param newValue the value to update the specified attribute to
+     *
+     * @return whether or not the modification was successful
+     */
+    @Override
+    public boolean modifyEvent(String eventID, String attribute, Object newValue) {
+        EventCollection shard = shardOf(eventID);
+        if (shard == null) {
+            return false; // event not found
+        }
+        synchronized (shard) {
+            return shard.modifyEvent(eventID, attribute, newValue);
+        }
+    }
+
+    /**
+     * sorts every shard in parallel, then k-way merges the sorted shards into one list
+     * @param attribute the attribute of the event to sort by, e.g. 'title'
+     * @return a list of the events, sorted by the specified attribute
+    */
+    @Override
+    public List<Event> sort(String attribute) {
+        Comparator<Event> comparator = EventCollection.comparatorFor(attribute); // fail fast on an invalid attribute
+        List<List<Event>> sortedShards = shards.values().parallelStream()
+                .map(shard -> {
+                    synchronized (shard) {
+                        return shard.sort(attribute);
+                    }
+                })
+                .collect(Collectors.toList());
+        return EventCollection.merge(sortedShards, comparator);
+    }
+
+    /**
+     * searches every shard in parallel for events matching an attribute and value
+     * @param attribute the attribute of the events we're looking, e.g. 'title'
+     * @param value the value of the specified attribute, e.g. all events with the title 'Anniversary'
+     * @return an array of strings with all the eventIDs of the events that match the search criteria
+    */
+    @Override
+    public String[] search(String attribute, Object value) {
+        if (attribute.equalsIgnoreCase("organization")) {
+            EventCollection shard = shards.get(value);
+            if (shard == null) {
+                return new String[0];
+            }
+            synchronized (shard) {
+                return shard.search(attribute, value);
+            }
+        }
+        return shards.values().parallelStream()
+                .flatMap(shard -> {
+                    synchronized (shard) {
+                        return List.of(shard.search(attribute, value)).stream();
+                    }
+                })
+                .toArray(String[]::new);
+    }
+
+    /**
+     * Displays events based on a specified filter, visiting one shard at a time so
+     * output from different organizations is not interleaved
+     * @param attribute the attribute of the events to filter by, e.g. 'title'
+     * @param value the value that the attribute should be equal to
+    */
+    @Override
+    public void view(String attribute, Object value) {
+        for (EventCollection shard : shards.values()) {
+            synchronized (shard) {
+                shard.view(attribute, value);
+            }
+        }
+    }
+
+    /**
+     * collects the events within a date range from every shard in parallel
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the set of events between start and end
+     */
+    @Override
+    public Set<Event> between(LocalDateTime start, LocalDateTime end) {
+        return shards.values().parallelStream()
+                .flatMap(shard -> {
+                    synchronized (shard) {
+                        return shard.between(start, end).stream();
+                    }
+                })
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Moves past events into the archive of every shard in parallel
+     * @return the number of events archived
+     */
+    @Override
+    public int archivePastEvents() {
+        return shards.values().parallelStream()
+                .mapToInt(shard -> {
+                    synchronized (shard) {
+                        return shard.archivePastEvents();
+                    }
+                })
+                .sum();
+    }
+
+    /**
+     * Performs an action on every event, one shard at a time
+     * @param action the action to perform on each event
+     */
+    @Override
+    public void forEachEvent(Consumer<Event> action) {
+        for (EventCollection shard : shards.values()) {
+            synchronized (shard) {
+                shard.forEachEvent(action);
+            }
+        }
+    }
+
+    /**
+     * @return a read-only snapshot of the events across all shards
+    */
+    @Override
+    public Set<Event> getEvents() {
+        Set<Event> events = new HashSet<>();
+        for (EventCollection shard : shards.values()) {
+            synchronized (shard) {
+                events.addAll(shard.getEvents());
+            }
+        }
+        return Collections.unmodifiableSet(events);
+    }
+
+    /**
+     * @return the number of events across all shards, including archived events
+     */
+    @Override
+    public int size() {
+        return shards.values().stream()
+                .mapToInt(shard -> {
+                    synchronized (shard) {
+                        return shard.size();
+                    }
+                })
+                .sum();
+    }
+
+    /**
+     * returns the shard of an organization, creating it if the organization has none yet
+     * @param organization the organization the shard holds events for
+     * @return the shard for the organization
+     */
+    public EventCollection shard(String organization) {
+        return shards.computeIfAbsent(organization, shardFactory);
+    }
+
+    /**
+     * @return the number of organizations that currently have a shard
+     */
+    public int shardCount() {
+        return shards.size();
+    }
+}